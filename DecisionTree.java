@@ -3,6 +3,7 @@
 import weka.classifiers.Classifier;
 import weka.core.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -17,6 +18,175 @@ class Node {
 
 }
 
+/**
+ * A set of rows of the indexed data, kept sparse: only the non-zero 64-bit words of the row bitmap are stored,
+ * together with their word index. Bit j of word w marks row 64 * w + j. The cost of working with a row set follows
+ * the number of its non-zero words, not the size of the indexed data.
+ */
+class RowSet {
+	int[] wordIndex;
+	long[] words;
+	// the number of rows in the set
+	int size;
+
+	RowSet(int[] wordIndex, long[] words, int size) {
+		this.wordIndex = wordIndex;
+		this.words = words;
+		this.size = size;
+	}
+}
+
+/**
+ * Bitmap index over a nominal data set, holding one bitmap of rows per (attribute, value) pair and one per class
+ * value. Row sets are intersected with these bitmaps by AND, and counted by popcount.
+ */
+class RowBitmapIndex {
+	Instances data;
+	int numWords;
+	// attributeBits[attribute][value] holds the rows with that value (missing values are in no bitmap)
+	long[][][] attributeBits;
+	// class0Bits holds the rows which hold the class value 0, the class 1 counts are the rest of a row set's rows
+	long[] class0Bits;
+
+	/**
+	 * Builds the bitmaps for a given data set in a single pass over its instances
+	 * @param data the data set
+	 * @throws IllegalArgumentException if one of the attributes is not nominal
+	 */
+	RowBitmapIndex(Instances data) {
+		for (int a = 0; a < data.numAttributes(); a++) {
+			if (!data.attribute(a).isNominal()) {
+				throw new IllegalArgumentException("The bitset builder requires nominal attributes, but attribute '"
+						+ data.attribute(a).name() + "' is not nominal");
+			}
+		}
+		this.data = data;
+		this.numWords = (data.numInstances() + 63) >>> 6;
+		this.attributeBits = new long[data.numAttributes()][][];
+		for (int a = 0; a < data.numAttributes(); a++) {
+			this.attributeBits[a] = new long[data.attribute(a).numValues()][numWords];
+		}
+		this.class0Bits = new long[numWords];
+		for (int j = 0; j < data.numInstances(); j++) {
+			Instance instance = data.instance(j);
+			long bit = 1L << j;
+			for (int a = 0; a < data.numAttributes(); a++) {
+				if (!instance.isMissing(a)) {
+					this.attributeBits[a][(int) instance.value(a)][j >>> 6] |= bit;
+				}
+			}
+			// the same (int) cast as the default builder's class counting
+			if ((int) instance.classValue() == 0) {
+				this.class0Bits[j >>> 6] |= bit;
+			}
+		}
+	}
+
+	/**
+	 * @return a row set holding every row of the indexed data
+	 */
+	RowSet allRows() {
+		int[] wordIndex = new int[numWords];
+		long[] words = new long[numWords];
+		for (int i = 0; i < numWords; i++) {
+			wordIndex[i] = i;
+			words[i] = -1L;
+		}
+		// clearing the bits past the last row
+		if ((data.numInstances() & 63) != 0) {
+			words[numWords - 1] = (1L << data.numInstances()) - 1;
+		}
+		return new RowSet(wordIndex, words, data.numInstances());
+	}
+
+	/**
+	 * Counts the rows of each class in a row set
+	 * @param rows the row set
+	 * @return an array which holds the number of rows which hold the class value 0 or 1
+	 */
+	int[] countClasses(RowSet rows) {
+		int[] counts = new int[2];
+		long[] class0 = class0Bits;
+		for (int k = 0; k < rows.words.length; k++) {
+			counts[0] += Long.bitCount(rows.words[k] & class0[rows.wordIndex[k]]);
+		}
+		counts[1] = rows.size - counts[0];
+		return counts;
+	}
+
+	/**
+	 * Counts the rows of each class for each value of an attribute within a row set, by AND and popcount
+	 * @param rows the row set
+	 * @param attributeIndex the attribute
+	 * @return counts[value][c] the number of rows which hold the value and the class value c
+	 */
+	int[][] countSplit(RowSet rows, int attributeIndex) {
+		long[][] valueBits = attributeBits[attributeIndex];
+		long[] class0 = class0Bits;
+		int[][] counts = new int[valueBits.length][2];
+		for (int v = 0; v < valueBits.length; v++) {
+			long[] bits = valueBits[v];
+			int size = 0;
+			int count0 = 0;
+			for (int k = 0; k < rows.words.length; k++) {
+				int w = rows.wordIndex[k];
+				long word = rows.words[k] & bits[w];
+				size += Long.bitCount(word);
+				count0 += Long.bitCount(word & class0[w]);
+			}
+			counts[v][0] = count0;
+			counts[v][1] = size - count0;
+		}
+		return counts;
+	}
+
+	/**
+	 * Intersects a row set with the bitmap of an attribute value, keeping only the non-zero words
+	 * @param rows the row set
+	 * @param attributeIndex the attribute
+	 * @param value the attribute's value
+	 * @param size the number of rows of the row set which hold the value
+	 * @return the rows of the row set which hold the value
+	 */
+	RowSet and(RowSet rows, int attributeIndex, int value, int size) {
+		long[] bits = attributeBits[attributeIndex][value];
+		int[] wordIndex = new int[Math.min(rows.words.length, size)];
+		long[] words = new long[wordIndex.length];
+		int length = 0;
+		for (int k = 0; k < rows.words.length && length < words.length; k++) {
+			long word = rows.words[k] & bits[rows.wordIndex[k]];
+			if (word != 0) {
+				wordIndex[length] = rows.wordIndex[k];
+				words[length] = word;
+				length++;
+			}
+		}
+		if (length < words.length) {
+			wordIndex = Arrays.copyOf(wordIndex, length);
+			words = Arrays.copyOf(words, length);
+		}
+		return new RowSet(wordIndex, words, size);
+	}
+
+	/**
+	 * Copies the rows of a row set into a new Instances object, keeping the order of the indexed data
+	 * @param rows the row set
+	 * @return the instances of the row set
+	 */
+	Instances toInstances(RowSet rows) {
+		Instances result = new Instances(data, rows.size);
+		for (int k = 0; k < rows.words.length; k++) {
+			long word = rows.words[k];
+			int base = rows.wordIndex[k] << 6;
+			while (word != 0) {
+				result.add(data.instance(base + Long.numberOfTrailingZeros(word)));
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+}
+
 public class DecisionTree implements Classifier {
 	private Node rootNode;
 
@@ -34,6 +204,21 @@ public class DecisionTree implements Classifier {
 	 * @param isGini build with gini or entropy
 	 */
 	public void buildTree(Instances data, boolean isGini){
+		buildTree(data, isGini, false);
+	}
+
+	/**
+	 * Builds a Decision Tree on a given data set, choosing between the default builder and the bitset builder.
+	 * Both builders produce the same tree.
+	 * @param data the data set
+	 * @param isGini build with gini or entropy
+	 * @param useBitsets build with row bitmaps and popcount counting instead of scanning the instances
+	 */
+	public void buildTree(Instances data, boolean isGini, boolean useBitsets){
+		if(useBitsets){
+			buildTreeWithBitsets(data, isGini);
+			return;
+		}
 		double currentGain;
 		// initialize the queue to hold the nodes by order
 		Node current;
@@ -71,6 +256,62 @@ public class DecisionTree implements Classifier {
 		}
 	}
 
+	/**
+	 * Builds a Decision Tree on a given data set, where each node's rows are a sparse bitmap. The split counts are
+	 * taken by AND and popcount over the precomputed attribute value and class bitmaps, and each child's rows are the
+	 * AND of its parent's rows with the bitmap of its attribute value.
+	 * @param data the data set, all of its attributes must be nominal
+	 * @param isGini build with gini or entropy
+	 */
+	private void buildTreeWithBitsets(Instances data, boolean isGini){
+		RowBitmapIndex index = new RowBitmapIndex(data);
+		Node current;
+		RowSet rows;
+		// the row sets are queued alongside their nodes, so only nodes waiting to be split hold one
+		Queue<Node> q = new LinkedList<>();
+		Queue<RowSet> rowQueue = new LinkedList<>();
+		this.rootNode = new Node();
+		this.rootNode.currentData = data;
+		q.add(rootNode);
+		rowQueue.add(index.allRows());
+		while(!q.isEmpty()){
+			current = q.remove();
+			rows = rowQueue.remove();
+			int[] classCounts = index.countClasses(rows);
+			current.returnValue = calcReturnValue(classCounts);
+			// the node is perfectly classified when all of its rows share one class
+			if(classCounts[0] == 0 || classCounts[1] == 0) {
+				continue;
+			}
+			int[][][] splitCounts = new int[data.numAttributes() - 1][][];
+			for (int i = 0; i < splitCounts.length; i++) {
+				splitCounts[i] = index.countSplit(rows, i);
+			}
+			int attIndex = findBestAttribute(classCounts, splitCounts, isGini);
+			if(attIndex != -1) {
+				current.attributeIndex = attIndex;
+				Node[] children = new Node[splitCounts[attIndex].length];
+				current.children = children;
+				for (int i = 0; i < children.length; i++) {
+					Node currentChild = new Node();
+					children[i] = currentChild;
+					currentChild.parent = current;
+					int childSize = splitCounts[attIndex][i][0] + splitCounts[attIndex][i][1];
+					// an empty child is a leaf, with the value the default builder gives an empty node
+					if(childSize == 0) {
+						currentChild.returnValue = 1.0;
+						currentChild.currentData = new Instances(data, 0);
+						continue;
+					}
+					RowSet childRows = index.and(rows, attIndex, i, childSize);
+					currentChild.currentData = index.toInstances(childRows);
+					q.add(currentChild);
+					rowQueue.add(childRows);
+				}
+			}
+		}
+	}
+
 	@Override
 	public void buildClassifier(Instances arg0) throws Exception {
 		buildTree(arg0, true);
@@ -123,15 +364,31 @@ public class DecisionTree implements Classifier {
 	 * Finds the best attribute for the current split
 	 * @param current the current node for which we want to find the best attribute for the split
 	 * @param isGini notifies the method if the method we are using is Gini or Entropy
-	 * @return
+	 * @return the best attribute index, or -1 if no attribute has a positive gain
 	 */
 	private int findBestAttribute(Node current, boolean isGini) {
+		// count the classes for each value of all possible attributes (excluding class atribute)
+		int[][][] splitCounts = new int[current.currentData.numAttributes() - 1][][];
+		for (int i = 0; i < splitCounts.length; i++) {
+			splitCounts[i] = countSplit(current.currentData, i);
+		}
+		return findBestAttribute(countClasses(current.currentData), splitCounts, isGini);
+	}
+
+	/**
+	 * Finds the best attribute for a split given the class counts of each attribute's values. Both builders choose
+	 * their split through this method.
+	 * @param classCounts the number of instances of each class in the current node
+	 * @param splitCounts splitCounts[attribute][value][c] the number of instances which hold the value and class c
+	 * @param isGini notifies the method if the method we are using is Gini or Entropy
+	 * @return the best attribute index, or -1 if no attribute has a positive gain
+	 */
+	private int findBestAttribute(int[] classCounts, int[][][] splitCounts, boolean isGini) {
 		double maxGain = 0;
 		double currentGain;
 		int bestAttributeIndex = 0;
-		// iterate over all possible attributes for the current node (excluding class atribute)
-		for (int i = 0; i < current.currentData.numAttributes() - 1; i++) {
-			currentGain = calcGain(current, current.currentData, i, isGini);
+		for (int i = 0; i < splitCounts.length; i++) {
+			currentGain = calcGain(classCounts, splitCounts[i], isGini);
 			// in case we got a better Gain for the current attribute, change the maxGain and the best attribute index
 			if (currentGain > maxGain) {
 				maxGain = currentGain;
@@ -202,32 +459,46 @@ public class DecisionTree implements Classifier {
 	}
 
 	/**
-	 * Calculates Gain of the current split
-	 * @param current the current node
- 	 * @param data the current data set
+	 * Counts the classes of the instances for each value of the current attribute
+	 * @param data the current data set
 	 * @param attributeIndex the current attribute
+	 * @return counts[value][c] the number of instances which hold the value and the class value c
+	 */
+	private int[][] countSplit(Instances data, int attributeIndex){
+		Instances[] dataArray = distributeData(data, attributeIndex);
+		int[][] counts = new int[dataArray.length][];
+		for(int i = 0; i < dataArray.length; i++){
+			counts[i] = countClasses(dataArray[i]);
+		}
+		return counts;
+	}
+
+	/**
+	 * Calculates Gain of the current split
+	 * @param classCounts the number of instances of each class in the current data set
+	 * @param splitCounts splitCounts[value][c] the number of instances which hold the value and the class value c
 	 * @param isGini notifies if the calculation is made with Gini or Entropy
 	 * @return the Gain
 	 */
-	private double calcGain(Node current, Instances data, int attributeIndex, boolean isGini){
-		double gain = 0;
+	private double calcGain(int[] classCounts, int[][] splitCounts, boolean isGini){
 		// will hold the value of the sigma calculation
 		double sigma = 0;
-		double[] probs = probabilities(data);
+		double numInstances = classCounts[0] + classCounts[1];
+		double[] probs = probabilities(classCounts);
 		double[] splitProbs;
-		Instances[] dataArray = distributeData(data, attributeIndex);
-		for(int i = 0; i < data.attribute(attributeIndex).numValues(); i++){
-			// if there is no data distributed to the current slot in the array, continue to the next one.
-			if(dataArray[i].numInstances() == 0){
+		for(int i = 0; i < splitCounts.length; i++){
+			int splitSize = splitCounts[i][0] + splitCounts[i][1];
+			// if there is no data distributed to the current value, continue to the next one.
+			if(splitSize == 0){
 				continue;
 			}
-			splitProbs = probabilities(dataArray[i]);
+			splitProbs = probabilities(splitCounts[i]);
 			// preforms the calculation of temp according to the method Gini/Entropy
 			if(isGini) {
-				sigma += ((double)(dataArray[i].numInstances()) / (double)(data.numInstances())) * calcGini(splitProbs);
+				sigma += ((double)splitSize / numInstances) * calcGini(splitProbs);
 			}
 			else{
-				sigma += ((double)(dataArray[i].numInstances()) / (double)(data.numInstances())) * calcEntropy(splitProbs);
+				sigma += ((double)splitSize / numInstances) * calcEntropy(splitProbs);
 			}
 		}
 		// calculates the final return value according to the method Gini/Entropy
@@ -239,29 +510,30 @@ public class DecisionTree implements Classifier {
 	}
 
 	/**
-	 * Creates a set of probabilities for a given data of instances
-	 * @param data the data set
-	 * @return an array with probabilities for the current data set
+	 * Creates a set of probabilities from the class counts of a data set
+	 * @param classCounts the number of instances of each class
+	 * @return an array with probabilities for the counted data set
 	 */
-	private double[] probabilities(Instances data){
-		// initialization of the returned array
-    	double[] probs = new double[2];
-		int index;
+	private double[] probabilities(int[] classCounts){
+		double[] probs = new double[2];
+		double numInstances = classCounts[0] + classCounts[1];
 		for(int i = 0; i < probs.length; i++){
-			probs[i] = 0;
+			probs[i] = (double)classCounts[i] / numInstances;
 		}
-    	// iterate over the instances in the given data
+		return probs;
+	}
+
+	/**
+	 * Counts the instances of each class in a given data set
+	 * @param data the data set
+	 * @return an array which holds the number of instances which hold the class value 0 or 1
+	 */
+	private int[] countClasses(Instances data){
+		int[] counts = new int[2];
 		for(int i = 0; i < data.numInstances(); i++){
-			// gives the current index the value of the current class attribute (0 or 1)
-			index = (int)data.instance(i).classValue();
-			// increment the amount of 0/1 in the array
-			probs[index]++;
-		}
-		// divide each index in the array by the total number of instances in order to get probability
-		for(int i = 0; i < probs.length; i++){
-			probs[i] /= (double)data.numInstances();
+			counts[(int)data.instance(i).classValue()]++;
 		}
-		return probs;
+		return counts;
 	}
 
 	/**
@@ -288,9 +560,17 @@ public class DecisionTree implements Classifier {
 	 * @return the correct return value for this node
 	 */
 	private double calcReturnValue(Node current){
-		double[] probs = probabilities(current.currentData);
+		return calcReturnValue(countClasses(current.currentData));
+	}
+
+	/**
+	 * Calculates the correct return value from a node's class counts
+	 * @param classCounts the number of instances of each class in the node
+	 * @return the correct return value for this node
+	 */
+	private double calcReturnValue(int[] classCounts){
 		// in case the majority if 0 returns 0 as the return value
-		if(probs[0] > probs[1]){
+		if(classCounts[0] > classCounts[1]){
 			return 0.0;
 		}
 		else{